@@ -1,4 +1,11 @@
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.LongSupplier;
 
 import components.binarytree.BinaryTree;
 import components.binarytree.BinaryTree1;
@@ -9,6 +16,16 @@ import components.set.SetSecondary;
  * {@code Set} represented as a {@code BinaryTree} (maintained as a binary
  * search tree) of elements with implementations of primary methods.
  *
+ * <p>
+ * The configuration of a {@code Set3a} (bound, eviction policy, time to
+ * live, clock and lazy deletion) and its pool capacity are copied by
+ * {@code newInstance}. The configuration and the eviction and hit/miss
+ * counts move with the value in {@code transferFrom}: after
+ * {@code this.transferFrom(source)}, {@code this} behaves and reports as
+ * {@code source} did, while {@code source} keeps its own configuration with
+ * its counts reset. Each object keeps its own pool of scratch trees.
+ * </p>
+ *
  * @param <T>
  *            type of {@code Set} elements
  * @mathdefinitions <pre>
@@ -19,28 +36,426 @@ import components.set.SetSecondary;
  *   slides with the ordering reported by compareTo for T, including that
  *   it has no duplicate labels]
  * </pre>
- * @convention IS_BST($this.tree)
- * @correspondence this = labels($this.tree)
+ * @convention <pre>
+ * IS_BST($this.tree)  and
+ * $this.tombstones is subset of labels($this.tree)  and
+ * [0 <= $this.compactionRatio < 1]  and
+ * [if $this.compactionRatio = 0 then $this.tombstones = {}]  and
+ * [$this.capacity > 0]  and
+ * [if $this.eviction is LRU or FIFO then
+ *  $this.order is not null and
+ *  keys($this.order) = labels($this.tree) \ $this.tombstones,
+ *  with the least recently used (LRU) or the least recently added
+ *  (FIFO) key first]  and
+ * [if $this.ttlNanos > 0 then $this.eviction = FIFO]  and
+ * [if $this.eviction is null or SMALLEST then $this.order is null]  and
+ * [if $this.eviction is not null then
+ *  |labels($this.tree) \ $this.tombstones| <= $this.capacity]
+ * </pre>
+ * @correspondence this = labels($this.tree) \ $this.tombstones
  *
  * @author Layan Abdallah & Oak Hodous
  *
  */
 public class Set3a<T extends Comparable<T>> extends SetSecondary<T> {
 
+    /**
+     * Policies for choosing which element a bounded {@code Set3a} gives up
+     * when an element is added while it is full.
+     */
+    public enum Eviction {
+        /**
+         * Evict the element least recently added or found by {@code contains}.
+         */
+        LRU,
+        /**
+         * Evict the element least recently added.
+         */
+        FIFO,
+        /**
+         * Evict the smallest element, as ordered by {@code compareTo}.
+         */
+        SMALLEST
+    }
+
+    /**
+     * Builder of a {@code Set3a} that combines a pool capacity, a bound with
+     * an eviction policy or a time to live, and lazy deletion. A setting that
+     * is not given keeps the default of the no-argument constructor.
+     */
+    public static final class Builder {
+
+        /**
+         * Largest number of empty {@code BinaryTree}s kept for reuse.
+         */
+        private int poolCapacity;
+
+        /**
+         * Largest number of elements kept.
+         */
+        private int capacity;
+
+        /**
+         * Eviction policy, or null for an unbounded set.
+         */
+        private Eviction eviction;
+
+        /**
+         * Time to live of the elements, in milliseconds, or 0 if they never
+         * expire.
+         */
+        private long ttlMillis;
+
+        /**
+         * Source of the current time, in nanoseconds.
+         */
+        private LongSupplier clock;
+
+        /**
+         * Fraction of removed labels that triggers a compaction, or 0 if
+         * {@code remove} deletes eagerly.
+         */
+        private double compactionRatio;
+
+        /**
+         * No-argument constructor.
+         */
+        public Builder() {
+            this.poolCapacity = DEFAULT_POOL_CAPACITY;
+            this.capacity = Integer.MAX_VALUE;
+            this.eviction = null;
+            this.ttlMillis = 0;
+            this.clock = System::nanoTime;
+            this.compactionRatio = 0;
+        }
+
+        /**
+         * Sets the number of empty {@code BinaryTree}s kept for reuse.
+         *
+         * @param poolCapacity
+         *            the largest number of empty {@code BinaryTree}s kept
+         *            for reuse
+         * @return this
+         * @updates this
+         * @requires poolCapacity >= 0
+         */
+        public Builder pool(int poolCapacity) {
+            assert poolCapacity >= 0 : "Violation of: poolCapacity >= 0";
+
+            this.poolCapacity = poolCapacity;
+            return this;
+        }
+
+        /**
+         * Bounds the set to {@code capacity} elements, evicting the element
+         * chosen by {@code eviction} when full; see
+         * {@link Set3a#Set3a(int, Eviction)}. Replaces any earlier call to
+         * {@code expiring}.
+         *
+         * @param capacity
+         *            the largest number of elements kept
+         * @param eviction
+         *            the policy choosing the element to evict when full
+         * @return this
+         * @updates this
+         * @requires capacity > 0
+         */
+        public Builder bounded(int capacity, Eviction eviction) {
+            assert capacity > 0 : "Violation of: capacity > 0";
+            assert eviction != null : "Violation of: eviction is not null";
+
+            this.capacity = capacity;
+            this.eviction = eviction;
+            this.ttlMillis = 0;
+            return this;
+        }
+
+        /**
+         * Bounds the set to {@code capacity} elements that expire
+         * {@code ttlMillis} milliseconds after they are added; see
+         * {@link Set3a#expiring(int, long)}. Replaces any earlier call to
+         * {@code bounded}.
+         *
+         * @param capacity
+         *            the largest number of elements kept
+         * @param ttlMillis
+         *            the time to live of each element, in milliseconds
+         * @return this
+         * @updates this
+         * @requires capacity > 0 and ttlMillis > 0
+         */
+        public Builder expiring(int capacity, long ttlMillis) {
+            assert capacity > 0 : "Violation of: capacity > 0";
+            assert ttlMillis > 0 : "Violation of: ttlMillis > 0";
+
+            this.capacity = capacity;
+            this.eviction = Eviction.FIFO;
+            this.ttlMillis = ttlMillis;
+            return this;
+        }
+
+        /**
+         * Sets the source of the current time used for expiry.
+         *
+         * @param clock
+         *            the source of the current time, in nanoseconds
+         * @return this
+         * @updates this
+         */
+        public Builder clock(LongSupplier clock) {
+            assert clock != null : "Violation of: clock is not null";
+
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Makes {@code remove} lazy; see {@link Set3a#lazy(int, double)}.
+         *
+         * @param compactionRatio
+         *            the fraction of removed labels that triggers a
+         *            compaction
+         * @return this
+         * @updates this
+         * @requires 0 < compactionRatio < 1
+         */
+        public Builder lazy(double compactionRatio) {
+            assert compactionRatio > 0 : "Violation of: compactionRatio > 0";
+            assert compactionRatio < 1 : "Violation of: compactionRatio < 1";
+
+            this.compactionRatio = compactionRatio;
+            return this;
+        }
+
+        /**
+         * Returns a new, empty {@code Set3a} with the settings of
+         * {@code this}.
+         *
+         * @param <T>
+         *            type of {@code Set} elements
+         * @return the new set
+         * @ensures build = {}
+         */
+        public <T extends Comparable<T>> Set3a<T> build() {
+            Set3a<T> result = new Set3a<T>(this.poolCapacity);
+            result.capacity = this.capacity;
+            result.eviction = this.eviction;
+            result.ttlNanos = this.ttlMillis * 1_000_000L;
+            result.clock = this.clock;
+            result.compactionRatio = this.compactionRatio;
+            result.createNewRep();
+            return result;
+        }
+
+    }
+
     /*
      * Private members --------------------------------------------------------
      */
 
+    /**
+     * Number of empty {@code BinaryTree}s kept for reuse by a {@code Set3a}
+     * built without an explicit pool capacity. This is enough for trees of
+     * height up to 32 never to allocate scratch subtrees.
+     */
+    private static final int DEFAULT_POOL_CAPACITY = 64;
+
     /**
      * Elements included in {@code this}.
      */
     private BinaryTree<T> tree;
 
+    /**
+     * Labels of {@code tree} that have been removed lazily and are waiting
+     * for the next compaction. They are kept in a balanced {@code TreeSet},
+     * ordered by {@code compareTo}, so marking a label costs O(log n) in
+     * whatever order the labels are removed.
+     */
+    private SortedSet<T> tombstones;
+
+    /**
+     * Fraction of the labels of {@code tree} that may be tombstones before
+     * {@code tree} is compacted, or 0 if {@code remove} deletes eagerly.
+     */
+    private double compactionRatio;
+
+    /**
+     * Empty {@code BinaryTree}s kept for reuse as the scratch subtrees needed
+     * to take {@code this.tree} apart and put it back together.
+     */
+    private BinaryTree<T>[] spares;
+
+    /**
+     * Number of entries at the front of {@code spares} that are in use.
+     */
+    private int spareCount;
+
+    /**
+     * Largest number of elements kept in {@code this} when it is bounded.
+     */
+    private int capacity;
+
+    /**
+     * Eviction policy of {@code this}, or null if {@code this} is unbounded.
+     */
+    private Eviction eviction;
+
+    /**
+     * Time to live of the elements, in nanoseconds, or 0 if they never
+     * expire.
+     */
+    private long ttlNanos;
+
+    /**
+     * Source of the current time, in nanoseconds, for {@code ttlNanos}.
+     */
+    private LongSupplier clock;
+
+    /**
+     * Elements of {@code this} in eviction order, each mapped to the time it
+     * was added, or null if {@code eviction} does not need an order.
+     */
+    private Map<T, Long> order;
+
+    /**
+     * Number of elements evicted from {@code this}.
+     */
+    private long evictions;
+
+    /**
+     * Number of calls to {@code contains} that found their element.
+     */
+    private long hits;
+
+    /**
+     * Number of calls to {@code contains} that did not find their element.
+     */
+    private long misses;
+
+    /**
+     * Iterator over the labels of {@code tree} that are not in
+     * {@code tombstones}. Both iterate in order, so the tombstones are
+     * skipped by merging the two iterations.
+     */
+    private final class LiveIterator implements Iterator<T> {
+
+        /**
+         * In-order iterator over the labels of {@code tree}.
+         */
+        private final Iterator<T> labels;
+
+        /**
+         * In-order iterator over {@code tombstones}.
+         */
+        private final Iterator<T> dead;
+
+        /**
+         * Next tombstone to skip, or null if there are no more.
+         */
+        private T nextDead;
+
+        /**
+         * Next label to return, or null if there are no more.
+         */
+        private T nextLive;
+
+        /**
+         * No-argument constructor.
+         */
+        LiveIterator() {
+            this.labels = Set3a.this.tree.iterator();
+            this.dead = Set3a.this.tombstones.iterator();
+            this.nextDead = null;
+            if (this.dead.hasNext()) {
+                this.nextDead = this.dead.next();
+            }
+            this.advance();
+        }
+
+        /**
+         * Moves {@code nextLive} to the next label of {@code tree} that is not
+         * a tombstone.
+         */
+        private void advance() {
+            this.nextLive = null;
+            while (this.nextLive == null && this.labels.hasNext()) {
+                T label = this.labels.next();
+                if (this.nextDead != null
+                        && label.compareTo(this.nextDead) == 0) {
+                    this.nextDead = null;
+                    if (this.dead.hasNext()) {
+                        this.nextDead = this.dead.next();
+                    }
+                } else {
+                    this.nextLive = label;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.nextLive != null;
+        }
+
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+
+            T result = this.nextLive;
+            this.advance();
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+    /**
+     * Returns an empty {@code BinaryTree}, taken from {@code spares} when one
+     * is available and newly allocated otherwise.
+     *
+     * @return an empty {@code BinaryTree}
+     * @updates this.spares, this.spareCount
+     * @ensures newTree = empty_tree
+     */
+    private BinaryTree<T> newTree() {
+        BinaryTree<T> result;
+        if (this.spareCount > 0) {
+            this.spareCount--;
+            result = this.spares[this.spareCount];
+            this.spares[this.spareCount] = null;
+        } else {
+            result = this.tree.newInstance();
+        }
+        return result;
+    }
+
+    /**
+     * Gives {@code t} back to {@code spares} for reuse by {@link #newTree}, or
+     * lets it go if {@code spares} is already full.
+     *
+     * @param t
+     *            the {@code BinaryTree} to be recycled
+     * @updates this.spares, this.spareCount
+     * @requires t = empty_tree and [t is not referenced anywhere else]
+     */
+    private void recycle(BinaryTree<T> t) {
+        assert t != null : "Violation of: t is not null";
+        assert t.size() == 0 : "Violation of: t = empty_tree";
+
+        if (this.spareCount < this.spares.length) {
+            this.spares[this.spareCount] = t;
+            this.spareCount++;
+        }
+    }
+
     /**
      * Returns whether {@code x} is in {@code t}.
      *
-     * @param <T>
-     *            type of {@code BinaryTree} labels
      * @param t
      *            the {@code BinaryTree} to be searched
      * @param x
@@ -49,13 +464,12 @@ public class Set3a<T extends Comparable<T>> extends SetSecondary<T> {
      * @requires IS_BST(t)
      * @ensures isInTree = (x is in labels(t))
      */
-    private static <T extends Comparable<T>> boolean isInTree(BinaryTree<T> t,
-            T x) {
+    private boolean isInTree(BinaryTree<T> t, T x) {
         assert t != null : "Violation of: t is not null";
         assert x != null : "Violation of: x is not null";
 
-        BinaryTree<T> left = t.newInstance();
-        BinaryTree<T> right = t.newInstance();
+        BinaryTree<T> left = this.newTree();
+        BinaryTree<T> right = this.newTree();
         boolean result = false;
 
         if (t.height() != 0) {
@@ -63,24 +477,24 @@ public class Set3a<T extends Comparable<T>> extends SetSecondary<T> {
             int check = x.compareTo(root);
             //recursively search right subtree
             if (check > 0) {
-                result = isInTree(right, x);
+                result = this.isInTree(right, x);
                 //recursively search left subtree
             } else if (check < 0) {
-                result = isInTree(left, x);
+                result = this.isInTree(left, x);
                 //x is equal to the root
             } else {
                 result = true;
             }
             t.assemble(root, left, right);
         }
+        this.recycle(left);
+        this.recycle(right);
         return result;
     }
 
     /**
      * Inserts {@code x} in {@code t}.
      *
-     * @param <T>
-     *            type of {@code BinaryTree} labels
      * @param t
      *            the {@code BinaryTree} to be searched
      * @param x
@@ -90,34 +504,37 @@ public class Set3a<T extends Comparable<T>> extends SetSecondary<T> {
      * @requires IS_BST(t) and x is not in labels(t)
      * @ensures IS_BST(t) and labels(t) = labels(#t) union {x}
      */
-    private static <T extends Comparable<T>> void insertInTree(BinaryTree<T> t,
-            T x) {
+    private void insertInTree(BinaryTree<T> t, T x) {
         assert t != null : "Violation of: t is not null";
         assert x != null : "Violation of: x is not null";
 
         //base case: if tree is empty, insert x as root
         if (t.size() == 0) {
-            t.assemble(x, t.newInstance(), t.newInstance());
+            BinaryTree<T> left = this.newTree();
+            BinaryTree<T> right = this.newTree();
+            t.assemble(x, left, right);
+            this.recycle(left);
+            this.recycle(right);
         } else {
             //recursive case: compare x to root
-            BinaryTree<T> left = t.newInstance();
-            BinaryTree<T> right = t.newInstance();
+            BinaryTree<T> left = this.newTree();
+            BinaryTree<T> right = this.newTree();
 
             T root = t.disassemble(left, right);
             if (x.compareTo(root) < 0) {
-                insertInTree(left, x); //insert x in left subtree
+                this.insertInTree(left, x); //insert x in left subtree
             } else {
-                insertInTree(right, x); //insert x in right subtree
+                this.insertInTree(right, x); //insert x in right subtree
             }
             t.assemble(root, left, right);
+            this.recycle(left);
+            this.recycle(right);
         }
     }
 
     /**
      * Removes and returns the smallest (left-most) label in {@code t}.
      *
-     * @param <T>
-     *            type of {@code BinaryTree} labels
      * @param t
      *            the {@code BinaryTree} from which to remove the label
      * @return the smallest label in the given {@code BinaryTree}
@@ -128,12 +545,12 @@ public class Set3a<T extends Comparable<T>> extends SetSecondary<T> {
      *  labels(t) = labels(#t) \ {removeSmallest}
      * </pre>
      */
-    private static <T> T removeSmallest(BinaryTree<T> t) {
+    private T removeSmallest(BinaryTree<T> t) {
         assert t != null : "Violation of: t is not null";
         assert t.size() > 0 : "Violation of: |t| > 0";
 
-        BinaryTree<T> left = t.newInstance();
-        BinaryTree<T> right = t.newInstance();
+        BinaryTree<T> left = this.newTree();
+        BinaryTree<T> right = this.newTree();
         T root = t.disassemble(left, right);
 
         //smallest is the root
@@ -142,12 +559,14 @@ public class Set3a<T extends Comparable<T>> extends SetSecondary<T> {
         //if left subtree is not empty
         if (left.height() > 0) {
             //recursively remove smallest from left subtree
-            smallest = removeSmallest(left);
+            smallest = this.removeSmallest(left);
             t.assemble(root, left, right);
             //if left subtree is empty, transfer right subtree to current
         } else {
             t.transferFrom(right);
         }
+        this.recycle(left);
+        this.recycle(right);
         return smallest;
     }
 
@@ -155,8 +574,6 @@ public class Set3a<T extends Comparable<T>> extends SetSecondary<T> {
      * Finds label {@code x} in {@code t}, removes it from {@code t}, and
      * returns it.
      *
-     * @param <T>
-     *            type of {@code BinaryTree} labels
      * @param t
      *            the {@code BinaryTree} from which to remove label {@code x}
      * @param x
@@ -169,15 +586,14 @@ public class Set3a<T extends Comparable<T>> extends SetSecondary<T> {
      *  labels(t) = labels(#t) \ {x}
      * </pre>
      */
-    private static <T extends Comparable<T>> T removeFromTree(BinaryTree<T> t,
-            T x) {
+    private T removeFromTree(BinaryTree<T> t, T x) {
         assert t != null : "Violation of: t is not null";
         assert x != null : "Violation of: x is not null";
         assert t.size() > 0 : "Violation of: x is in labels(t)";
 
         T removed = t.root();
-        BinaryTree<T> left = t.newInstance();
-        BinaryTree<T> right = t.newInstance();
+        BinaryTree<T> left = this.newTree();
+        BinaryTree<T> right = this.newTree();
         T root = t.disassemble(left, right);
 
         if (root.compareTo(x) == 0) {
@@ -190,27 +606,345 @@ public class Set3a<T extends Comparable<T>> extends SetSecondary<T> {
                 //if both left and right subtrees are not empty
             } else if (left.size() > 0 && right.size() > 0) {
                 //remove smallest from right subtree
-                T smallest = removeSmallest(right);
+                T smallest = this.removeSmallest(right);
                 t.assemble(smallest, left, right);
             }
         } else if (x.compareTo(root) > 0) {
             //recursively remove x from right subtree
-            removed = removeFromTree(right, x);
+            removed = this.removeFromTree(right, x);
             t.assemble(root, left, right);
         } else {
             //recursively remove x from left subtree
-            removed = removeFromTree(left, x);
+            removed = this.removeFromTree(left, x);
+            t.assemble(root, left, right);
+        }
+        this.recycle(left);
+        this.recycle(right);
+        return removed;
+    }
+
+    /**
+     * Replaces the label of {@code t} that is equal to {@code x} with
+     * {@code x}, without changing the shape of {@code t}.
+     *
+     * @param t
+     *            the {@code BinaryTree} whose label is to be replaced
+     * @param x
+     *            the new label
+     * @aliases reference {@code x}
+     * @updates t
+     * @requires IS_BST(t) and x is in labels(t)
+     * @ensures <pre>
+     * IS_BST(t)  and  labels(t) = labels(#t)  and
+     *  [t has the same shape as #t, with x in place of the label equal to x]
+     * </pre>
+     */
+    private void relabelInTree(BinaryTree<T> t, T x) {
+        assert t != null : "Violation of: t is not null";
+        assert x != null : "Violation of: x is not null";
+        assert t.size() > 0 : "Violation of: x is in labels(t)";
+
+        BinaryTree<T> left = this.newTree();
+        BinaryTree<T> right = this.newTree();
+        T root = t.disassemble(left, right);
+        int check = x.compareTo(root);
+        if (check > 0) {
+            this.relabelInTree(right, x);
+        } else if (check < 0) {
+            this.relabelInTree(left, x);
+        } else {
+            root = x;
+        }
+        t.assemble(root, left, right);
+        this.recycle(left);
+        this.recycle(right);
+    }
+
+    /**
+     * Returns the first index in {@code probes[lo, hi)} whose entry is not
+     * smaller than {@code x}, or {@code hi} if there is no such index.
+     *
+     * @param <T>
+     *            type of {@code probes} entries
+     * @param probes
+     *            the sorted array to be searched
+     * @param lo
+     *            the first index of the range to search
+     * @param hi
+     *            one past the last index of the range to search
+     * @param x
+     *            the label to be searched for
+     * @return the first index in [lo, hi) with probes[index] >= x, or hi
+     * @requires 0 <= lo <= hi <= |probes| and [probes[lo, hi) is sorted in
+     *           non-decreasing order]
+     * @ensures <pre>
+     * lo <= firstNotBelow <= hi  and
+     *  [every entry in probes[lo, firstNotBelow) is smaller than x]  and
+     *  [no entry in probes[firstNotBelow, hi) is smaller than x]
+     * </pre>
+     */
+    private static <T extends Comparable<T>> int firstNotBelow(T[] probes,
+            int lo, int hi, T x) {
+        assert probes != null : "Violation of: probes is not null";
+        assert x != null : "Violation of: x is not null";
+
+        int low = lo;
+        int high = hi;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (probes[mid].compareTo(x) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Records in {@code found} which of the labels in {@code probes[lo, hi)}
+     * are in {@code t}. The probe range is split around the root of {@code t}
+     * and only subtrees that still have probes left are searched, so the tree
+     * is walked once in order instead of once per probe.
+     *
+     * @param t
+     *            the {@code BinaryTree} to be searched
+     * @param probes
+     *            the sorted labels to be searched for
+     * @param lo
+     *            the first index of the range of probes to search for
+     * @param hi
+     *            one past the last index of the range of probes to search for
+     * @param found
+     *            the flags to be set for the probes that are in {@code t}
+     * @updates found
+     * @requires <pre>
+     * IS_BST(t)  and  0 <= lo <= hi <= |probes|  and  |found| = |probes|  and
+     *  [probes[lo, hi) is sorted in non-decreasing order]
+     * </pre>
+     * @ensures <pre>
+     * [for every i in [lo, hi), found[i] = (#found[i] or
+     *  probes[i] is in labels(t))]
+     * </pre>
+     */
+    private void markInTree(BinaryTree<T> t, T[] probes, int lo, int hi,
+            boolean[] found) {
+        assert t != null : "Violation of: t is not null";
+        assert probes != null : "Violation of: probes is not null";
+        assert found != null : "Violation of: found is not null";
+
+        if (lo < hi && t.height() != 0) {
+            BinaryTree<T> left = this.newTree();
+            BinaryTree<T> right = this.newTree();
+            T root = t.disassemble(left, right);
+
+            //probes[lo, mid) are smaller than root, probes[end, hi) larger
+            int mid = firstNotBelow(probes, lo, hi, root);
+            int end = mid;
+            while (end < hi && probes[end].compareTo(root) == 0) {
+                found[end] = true;
+                end++;
+            }
+            this.markInTree(left, probes, lo, mid, found);
+            this.markInTree(right, probes, end, hi, found);
             t.assemble(root, left, right);
+            this.recycle(left);
+            this.recycle(right);
+        }
+    }
+
+    /**
+     * Returns whether the entries of {@code probes} are non-null and sorted in
+     * non-decreasing order.
+     *
+     * @param <T>
+     *            type of {@code probes} entries
+     * @param probes
+     *            the array to be checked
+     * @return true if probes is sorted, false otherwise
+     * @ensures <pre>
+     * isSorted = [every entry of probes is not null and
+     *  probes is sorted in non-decreasing order]
+     * </pre>
+     */
+    private static <T extends Comparable<T>> boolean isSorted(T[] probes) {
+        boolean sorted = true;
+        for (int i = 0; sorted && i < probes.length; i++) {
+            sorted = probes[i] != null
+                    && (i == 0 || probes[i - 1].compareTo(probes[i]) <= 0);
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns whether {@code x} is in {@code this.tree} and has not been
+     * removed lazily.
+     *
+     * @param x
+     *            the label to be searched for
+     * @return true if x is in this, false otherwise
+     * @ensures isLive = (x is in this)
+     */
+    private boolean isLive(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        return this.isInTree(this.tree, x) && (this.tombstones.isEmpty()
+                || !this.tombstones.contains(x));
+    }
+
+    /**
+     * Removes {@code x} from {@code this}, either by removing it from
+     * {@code this.tree} or, when deletion is lazy, by adding it to
+     * {@code this.tombstones} and compacting once there are too many of them.
+     *
+     * @param x
+     *            the label to be removed
+     * @return the removed label
+     * @updates this
+     * @requires x is in this
+     * @ensures this = #this \ {x} and delete = x
+     */
+    private T delete(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        T removed = x;
+        if (this.compactionRatio > 0) {
+            this.tombstones.add(x);
+            if (this.tombstones.size() > this.compactionRatio
+                    * this.tree.size()) {
+                this.compact();
+            }
+        } else {
+            removed = this.removeFromTree(this.tree, x);
         }
         return removed;
     }
 
+    /**
+     * Removes and returns the smallest label of {@code this.tree} that has
+     * not been removed lazily, dropping the tombstones smaller than it.
+     *
+     * @return the smallest element of this
+     * @updates this
+     * @requires |this| > 0
+     * @ensures <pre>
+     * removeSmallestLive = [the smallest element of #this]  and
+     *  this = #this \ {removeSmallestLive}
+     * </pre>
+     */
+    private T removeSmallestLive() {
+        assert this.tree.size() > this.tombstones.size() : ""
+                + "Violation of: |this| > 0";
+
+        T smallest = this.removeSmallest(this.tree);
+        while (this.tombstones.remove(smallest)) {
+            smallest = this.removeSmallest(this.tree);
+        }
+        return smallest;
+    }
+
+    /**
+     * Builds in {@code t} a tree of minimum height holding
+     * {@code labels[lo, hi)}.
+     *
+     * @param t
+     *            the {@code BinaryTree} to be built
+     * @param labels
+     *            the sorted labels to be placed in {@code t}
+     * @param lo
+     *            the first index of the range of labels to place
+     * @param hi
+     *            one past the last index of the range of labels to place
+     * @replaces t
+     * @requires <pre>
+     * 0 <= lo <= hi <= |labels|  and
+     *  [labels[lo, hi) is sorted in increasing order]
+     * </pre>
+     * @ensures <pre>
+     * IS_BST(t)  and  labels(t) = [entries of labels[lo, hi)]  and
+     *  height(t) = [the smallest height of a tree with hi - lo labels]
+     * </pre>
+     */
+    private void buildTree(BinaryTree<T> t, List<T> labels, int lo, int hi) {
+        assert t != null : "Violation of: t is not null";
+        assert labels != null : "Violation of: labels is not null";
+
+        t.clear();
+        if (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            BinaryTree<T> left = this.newTree();
+            BinaryTree<T> right = this.newTree();
+            this.buildTree(left, labels, lo, mid);
+            this.buildTree(right, labels, mid + 1, hi);
+            t.assemble(labels.get(mid), left, right);
+            this.recycle(left);
+            this.recycle(right);
+        }
+    }
+
+    /**
+     * Removes from {@code this} the elements whose time to live has run out,
+     * if {@code this.ttlNanos} > 0.
+     *
+     * @updates this
+     * @ensures this = #this \ [elements added more than ttlNanos ago]
+     */
+    private void expire() {
+        if (this.ttlNanos > 0) {
+            long now = this.clock.getAsLong();
+            Iterator<Map.Entry<T, Long>> it = this.order.entrySet().iterator();
+            boolean expired = true;
+            while (expired && it.hasNext()) {
+                Map.Entry<T, Long> oldest = it.next();
+                expired = now - oldest.getValue() >= this.ttlNanos;
+                if (expired) {
+                    it.remove();
+                    this.delete(oldest.getKey());
+                    this.evictions++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes from {@code this} the element chosen by {@code this.eviction}.
+     *
+     * @updates this
+     * @requires this.eviction is not null and |this| > 0
+     * @ensures <pre>
+     * |this| = |#this| - 1  and  this is subset of #this  and
+     *  [the element removed is the one chosen by this.eviction]
+     * </pre>
+     */
+    private void evict() {
+        assert this.eviction != null : "Violation of: this is bounded";
+        assert this.tree.size() > this.tombstones.size() : ""
+                + "Violation of: |this| > 0";
+
+        if (this.order == null) {
+            this.removeSmallestLive();
+        } else {
+            Iterator<T> it = this.order.keySet().iterator();
+            T victim = it.next();
+            it.remove();
+            this.delete(victim);
+        }
+        this.evictions++;
+    }
+
     /**
      * Creator of initial representation.
      */
     private void createNewRep() {
 
         this.tree = new BinaryTree1<T>();
+        this.tombstones = new TreeSet<T>();
+        if (this.eviction == null || this.eviction == Eviction.SMALLEST) {
+            this.order = null;
+        } else {
+            this.order = new LinkedHashMap<T, Long>(16, 0.75f,
+                    this.eviction == Eviction.LRU);
+        }
 
     }
 
@@ -223,10 +957,131 @@ public class Set3a<T extends Comparable<T>> extends SetSecondary<T> {
      */
     public Set3a() {
 
+        this(DEFAULT_POOL_CAPACITY);
+
+    }
+
+    /**
+     * Constructor that keeps up to {@code poolCapacity} empty
+     * {@code BinaryTree}s for reuse as the scratch subtrees that {@code Set3a}
+     * itself needs to take its tree apart and put it back together. A
+     * capacity of about twice the height of the tree is enough for those
+     * scratch subtrees never to be allocated; 0 disables reuse. This is a
+     * pool of scratch wrappers only, not a node allocator: {@code BinaryTree}
+     * still allocates internally when it is assembled, and {@code clear}
+     * returns nothing to the pool.
+     *
+     * @param poolCapacity
+     *            the largest number of empty {@code BinaryTree}s kept for reuse
+     * @requires poolCapacity >= 0
+     */
+    @SuppressWarnings("unchecked")
+    public Set3a(int poolCapacity) {
+        assert poolCapacity >= 0 : "Violation of: poolCapacity >= 0";
+
+        this.spares = (BinaryTree<T>[]) new BinaryTree<?>[poolCapacity];
+        this.spareCount = 0;
+        this.compactionRatio = 0;
+        this.capacity = Integer.MAX_VALUE;
+        this.eviction = null;
+        this.ttlNanos = 0;
+        this.clock = System::nanoTime;
         this.createNewRep();
 
     }
 
+    /**
+     * Constructor of a bounded set that holds at most {@code capacity}
+     * elements. Adding to a full set first evicts the element chosen by
+     * {@code eviction}, so {@code add} then ensures
+     * {@code this = (#this \ {evicted}) union {x}}. For {@code LRU} and
+     * {@code FIFO}, {@code T} must have {@code equals} and {@code hashCode}
+     * consistent with {@code compareTo}.
+     *
+     * @param capacity
+     *            the largest number of elements kept
+     * @param eviction
+     *            the policy choosing the element to evict when full
+     * @requires capacity > 0
+     */
+    public Set3a(int capacity, Eviction eviction) {
+        this(DEFAULT_POOL_CAPACITY);
+        assert capacity > 0 : "Violation of: capacity > 0";
+        assert eviction != null : "Violation of: eviction is not null";
+
+        this.capacity = capacity;
+        this.eviction = eviction;
+        this.createNewRep();
+
+    }
+
+    /**
+     * Returns a new bounded set whose elements expire {@code ttlMillis}
+     * milliseconds after they are added, and that evicts the element least
+     * recently added ({@code FIFO}) when an element is added while it holds
+     * {@code capacity} elements. {@code T} must have {@code equals} and
+     * {@code hashCode} consistent with {@code compareTo}.
+     *
+     * @param <T>
+     *            type of {@code Set} elements
+     * @param capacity
+     *            the largest number of elements kept
+     * @param ttlMillis
+     *            the time to live of each element, in milliseconds
+     * @return the new set
+     * @requires capacity > 0 and ttlMillis > 0
+     * @ensures expiring = {}
+     */
+    public static <T extends Comparable<T>> Set3a<T> expiring(int capacity,
+            long ttlMillis) {
+        return new Builder().expiring(capacity, ttlMillis).build();
+    }
+
+    /**
+     * Returns a new bounded set like {@link #expiring(int, long)}, reading
+     * the current time from {@code clock} instead of
+     * {@code System.nanoTime}.
+     *
+     * @param <T>
+     *            type of {@code Set} elements
+     * @param capacity
+     *            the largest number of elements kept
+     * @param ttlMillis
+     *            the time to live of each element, in milliseconds
+     * @param clock
+     *            the source of the current time, in nanoseconds
+     * @return the new set
+     * @requires capacity > 0 and ttlMillis > 0
+     * @ensures expiring = {}
+     */
+    public static <T extends Comparable<T>> Set3a<T> expiring(int capacity,
+            long ttlMillis, LongSupplier clock) {
+        return new Builder().expiring(capacity, ttlMillis).clock(clock)
+                .build();
+    }
+
+    /**
+     * Returns a new set whose {@code remove} only marks the element as
+     * removed, leaving the shape of the tree alone. Once more than
+     * {@code compactionRatio} of the labels in the tree are marked, the tree
+     * is rebuilt with minimum height from the elements still in the set; see
+     * {@link #compact}.
+     *
+     * @param <T>
+     *            type of {@code Set} elements
+     * @param poolCapacity
+     *            the largest number of empty {@code BinaryTree}s kept for reuse
+     * @param compactionRatio
+     *            the fraction of removed labels that triggers a compaction
+     * @return the new set
+     * @requires poolCapacity >= 0 and 0 < compactionRatio < 1
+     * @ensures lazy = {}
+     */
+    public static <T extends Comparable<T>> Set3a<T> lazy(int poolCapacity,
+            double compactionRatio) {
+        return new Builder().pool(poolCapacity).lazy(compactionRatio).build();
+    }
+
     /*
      * Standard methods -------------------------------------------------------
      */
@@ -235,7 +1090,16 @@ public class Set3a<T extends Comparable<T>> extends SetSecondary<T> {
     @Override
     public final Set<T> newInstance() {
         try {
-            return this.getClass().getConstructor().newInstance();
+            Set3a<T> result = this.getClass().getConstructor().newInstance();
+            int poolCapacity = this.spares.length;
+            result.spares = (BinaryTree<T>[]) new BinaryTree<?>[poolCapacity];
+            result.compactionRatio = this.compactionRatio;
+            result.capacity = this.capacity;
+            result.eviction = this.eviction;
+            result.ttlNanos = this.ttlNanos;
+            result.clock = this.clock;
+            result.createNewRep();
+            return result;
         } catch (ReflectiveOperationException e) {
             throw new AssertionError(
                     "Cannot construct object of type " + this.getClass());
@@ -260,6 +1124,19 @@ public class Set3a<T extends Comparable<T>> extends SetSecondary<T> {
          */
         Set3a<T> localSource = (Set3a<T>) source;
         this.tree = localSource.tree;
+        this.tombstones = localSource.tombstones;
+        this.compactionRatio = localSource.compactionRatio;
+        this.capacity = localSource.capacity;
+        this.eviction = localSource.eviction;
+        this.ttlNanos = localSource.ttlNanos;
+        this.clock = localSource.clock;
+        this.order = localSource.order;
+        this.evictions = localSource.evictions;
+        this.hits = localSource.hits;
+        this.misses = localSource.misses;
+        localSource.evictions = 0;
+        localSource.hits = 0;
+        localSource.misses = 0;
         localSource.createNewRep();
     }
 
@@ -270,43 +1147,252 @@ public class Set3a<T extends Comparable<T>> extends SetSecondary<T> {
     @Override
     public final void add(T x) {
         assert x != null : "Violation of: x is not null";
-        assert !this.contains(x) : "Violation of: x is not in this";
+        this.expire();
+        assert !this.isLive(x) : "Violation of: x is not in this";
 
-        insertInTree(this.tree, x);
+        if (this.tree.size() - this.tombstones.size() >= this.capacity) {
+            this.evict();
+        }
+        if (this.tombstones.remove(x)) {
+            //x was removed lazily, so reuse its node in place
+            this.relabelInTree(this.tree, x);
+        } else {
+            this.insertInTree(this.tree, x);
+        }
+        if (this.order != null) {
+            this.order.put(x, this.clock.getAsLong());
+        }
 
     }
 
     @Override
     public final T remove(T x) {
         assert x != null : "Violation of: x is not null";
-        assert this.contains(x) : "Violation of: x is in this";
+        assert this.isLive(x) : "Violation of: x is in this";
 
-        return removeFromTree(this.tree, x);
+        T removed = this.delete(x);
+        if (this.order != null) {
+            this.order.remove(removed);
+        }
+        //expire only after x is gone, so x cannot expire under the caller
+        this.expire();
+        return removed;
     }
 
     @Override
     public final T removeAny() {
-        assert this.size() > 0 : "Violation of: this /= empty_set";
+        assert this.tree.size() > this.tombstones.size() : ""
+                + "Violation of: this /= empty_set";
 
-        return removeSmallest(this.tree);
+        T removed = this.removeSmallestLive();
+        if (this.order != null) {
+            this.order.remove(removed);
+        }
+        this.expire();
+        return removed;
     }
 
     @Override
     public final boolean contains(T x) {
         assert x != null : "Violation of: x is not null";
 
-        return isInTree(this.tree, x);
+        this.expire();
+        boolean result = this.isLive(x);
+        if (result) {
+            this.hits++;
+            if (this.eviction == Eviction.LRU) {
+                //mark x as most recently used
+                this.order.get(x);
+            }
+        } else {
+            this.misses++;
+        }
+        return result;
     }
 
     @Override
     public final int size() {
 
-        return this.tree.size();
+        this.expire();
+        return this.tree.size() - this.tombstones.size();
     }
 
     @Override
     public final Iterator<T> iterator() {
-        return this.tree.iterator();
+        this.expire();
+        Iterator<T> result;
+        if (this.tombstones.isEmpty()) {
+            result = this.tree.iterator();
+        } else {
+            result = new LiveIterator();
+        }
+        return result;
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Reports whether all of the entries of {@code sortedProbes} are in
+     * {@code this}. The tree is walked once in order, so this is much faster
+     * than calling {@code contains} for each probe; each probe still counts
+     * as a hit or a miss, and marks its element as used, as {@code contains}
+     * does.
+     *
+     * @param sortedProbes
+     *            the entries to be searched for
+     * @return true if every entry of sortedProbes is in this, false otherwise
+     * @requires <pre>
+     * [every entry of sortedProbes is not null]  and
+     *  [sortedProbes is sorted in non-decreasing order]
+     * </pre>
+     * @ensures containsAll = [every entry of sortedProbes is in this]
+     */
+    public final boolean containsAll(T[] sortedProbes) {
+        assert sortedProbes != null : "Violation of: sortedProbes is not null";
+        assert isSorted(sortedProbes) : ""
+                + "Violation of: sortedProbes is sorted";
+
+        boolean[] found = this.containsEach(sortedProbes);
+        boolean result = true;
+        for (int i = 0; result && i < found.length; i++) {
+            result = found[i];
+        }
+        return result;
+    }
+
+    /**
+     * Reports, for each of the entries of {@code sortedProbes}, whether it is
+     * in {@code this}. The tree is walked once in order, so this is much
+     * faster than calling {@code contains} for each probe; each probe still
+     * counts as a hit or a miss, and marks its element as used, as
+     * {@code contains} does.
+     *
+     * @param sortedProbes
+     *            the entries to be searched for
+     * @return the flags telling which entries of sortedProbes are in this
+     * @requires <pre>
+     * [every entry of sortedProbes is not null]  and
+     *  [sortedProbes is sorted in non-decreasing order]
+     * </pre>
+     * @ensures <pre>
+     * |containsEach| = |sortedProbes|  and
+     *  [for every i, containsEach[i] = (sortedProbes[i] is in this)]
+     * </pre>
+     */
+    public final boolean[] containsEach(T[] sortedProbes) {
+        assert sortedProbes != null : "Violation of: sortedProbes is not null";
+        assert isSorted(sortedProbes) : ""
+                + "Violation of: sortedProbes is sorted";
+
+        this.expire();
+        boolean[] found = new boolean[sortedProbes.length];
+        this.markInTree(this.tree, sortedProbes, 0, sortedProbes.length,
+                found);
+        if (!this.tombstones.isEmpty()) {
+            for (int i = 0; i < found.length; i++) {
+                found[i] = found[i]
+                        && !this.tombstones.contains(sortedProbes[i]);
+            }
+        }
+        //count and touch each probe as contains would
+        for (int i = 0; i < found.length; i++) {
+            if (found[i]) {
+                this.hits++;
+                if (this.eviction == Eviction.LRU) {
+                    this.order.get(sortedProbes[i]);
+                }
+            } else {
+                this.misses++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Drops the labels removed lazily from {@code this} and rebuilds the tree
+     * with minimum height. This is done automatically once there are too many
+     * removed labels, and may also be called at a quiet moment to rebalance.
+     *
+     * @updates this
+     * @ensures this = #this
+     */
+    public final void compact() {
+        List<T> live = new ArrayList<T>(
+                this.tree.size() - this.tombstones.size());
+        Iterator<T> it = new LiveIterator();
+        while (it.hasNext()) {
+            live.add(it.next());
+        }
+        this.buildTree(this.tree, live, 0, live.size());
+        this.tombstones.clear();
+    }
+
+    /**
+     * Reports the largest number of elements kept in {@code this}.
+     *
+     * @return the capacity of this, or Integer.MAX_VALUE if this is unbounded
+     */
+    public final int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Reports the eviction policy of {@code this}.
+     *
+     * @return the eviction policy of this, or null if this is unbounded
+     */
+    public final Eviction eviction() {
+        return this.eviction;
+    }
+
+    /**
+     * Reports how many elements {@code this} has evicted, either to make room
+     * for an added element or because their time to live ran out.
+     *
+     * @return the number of elements evicted from this
+     */
+    public final long evictionCount() {
+        return this.evictions;
+    }
+
+    /**
+     * Reports how many calls to {@code contains} found their element.
+     *
+     * @return the number of hits of this
+     */
+    public final long hitCount() {
+        return this.hits;
+    }
+
+    /**
+     * Reports how many calls to {@code contains} did not find their element.
+     *
+     * @return the number of misses of this
+     */
+    public final long missCount() {
+        return this.misses;
+    }
+
+    /**
+     * Reports how many elements have been removed lazily from {@code this}
+     * and are still waiting for a compaction.
+     *
+     * @return the number of tombstones of this
+     */
+    public final int tombstoneCount() {
+        return this.tombstones.size();
+    }
+
+    /**
+     * Reports how many empty {@code BinaryTree}s {@code this} currently holds
+     * for reuse as scratch subtrees.
+     *
+     * @return the number of pooled scratch trees of this
+     */
+    public final int poolSize() {
+        return this.spareCount;
     }
 
 }
@@ -1,3 +1,10 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
 import components.set.Set;
 import components.set.Set1L;
 
@@ -16,4 +23,534 @@ public class Set3aTest extends SetTest {
         return new Set1L<String>();
     }
 
+    /**
+     * Creates and returns a {@code Set3a<String>} with the given entries.
+     *
+     * @param args
+     *            the entries for the set
+     * @return the constructed set
+     * @requires [every entry in args is unique]
+     * @ensures createFromArgs = [entries in args]
+     */
+    private static Set3a<String> createFromArgs(String... args) {
+        Set3a<String> set = new Set3a<String>();
+        for (String s : args) {
+            set.add(s);
+        }
+        return set;
+    }
+
+    //containsAll and containsEach tests
+
+    /**
+     * Test case for containsEach with an empty set.
+     */
+    @Test
+    public void testContainsEachEdgeCase() {
+        Set3a<String> set = createFromArgs();
+        Set3a<String> expected = createFromArgs();
+        boolean[] found = set.containsEach(new String[] { "A", "B" });
+
+        assertArrayEquals(new boolean[] { false, false }, found);
+        assertEquals(expected, set);
+    }
+
+    /**
+     * Test case for containsEach with no probes.
+     */
+    @Test
+    public void testContainsEachSpecialCase() {
+        Set3a<String> set = createFromArgs("B", "A", "C");
+        Set3a<String> expected = createFromArgs("B", "A", "C");
+        boolean[] found = set.containsEach(new String[0]);
+
+        assertEquals(0, found.length);
+        assertEquals(expected, set);
+    }
+
+    /**
+     * Test case for containsEach with both left and right trees.
+     */
+    @Test
+    public void testContainsEachRoutineCase() {
+        Set3a<String> set = createFromArgs("D", "B", "K", "A", "C", "F");
+        Set3a<String> expected = createFromArgs("D", "B", "K", "A", "C", "F");
+        boolean[] found = set.containsEach(
+                new String[] { "A", "C", "C", "E", "F", "G", "K", "Z" });
+
+        assertArrayEquals(new boolean[] { true, true, true, false, true, false,
+                true, false }, found);
+        assertEquals(expected, set);
+    }
+
+    /**
+     * Test case for containsAll with every probe in the set.
+     */
+    @Test
+    public void testContainsAllTrue() {
+        Set3a<String> set = createFromArgs("D", "B", "K", "A", "C", "F");
+        Set3a<String> expected = createFromArgs("D", "B", "K", "A", "C", "F");
+
+        assertTrue(set.containsAll(new String[] { "A", "B", "D", "K" }));
+        assertTrue(set.containsAll(new String[0]));
+        assertEquals(expected, set);
+    }
+
+    /**
+     * Test case for containsAll with a probe missing from the set.
+     */
+    @Test
+    public void testContainsAllFalse() {
+        Set3a<String> set = createFromArgs("D", "B", "K", "A", "C", "F");
+        Set3a<String> expected = createFromArgs("D", "B", "K", "A", "C", "F");
+
+        assertFalse(set.containsAll(new String[] { "A", "B", "E", "K" }));
+        assertFalse(createFromArgs().containsAll(new String[] { "A" }));
+        assertEquals(expected, set);
+    }
+
+    //pooled constructor tests
+
+    /**
+     * Test case for add and remove on a set that reuses its scratch trees.
+     */
+    @Test
+    public void testPooledAddRemove() {
+        Set3a<String> set = new Set3a<String>(8);
+        Set<String> expected = this.constructorRef();
+        String[] entries = { "D", "B", "K", "A", "C", "F", "E" };
+        for (int round = 0; round < 3; round++) {
+            for (String s : entries) {
+                set.add(s);
+            }
+            for (String s : entries) {
+                assertEquals(s, set.remove(s));
+            }
+        }
+        set.add("B");
+        set.add("A");
+        expected.add("B");
+
+        assertEquals("A", set.removeAny());
+        assertEquals(expected, set);
+    }
+
+    /**
+     * Test case for clear on a set that reuses its scratch trees.
+     */
+    @Test
+    public void testPooledClear() {
+        Set3a<String> set = new Set3a<String>(4);
+        Set<String> expected = this.constructorRef();
+        set.add("B");
+        set.add("A");
+        set.add("C");
+        set.clear();
+
+        assertEquals(expected, set);
+        set.add("A");
+        expected.add("A");
+        assertEquals(expected, set);
+    }
+
+    /**
+     * Test case for the pool of scratch trees reaching a steady size, so that
+     * repeated churn takes every scratch tree from the pool.
+     */
+    @Test
+    public void testPooledReuse() {
+        Set3a<String> set = new Set3a<String>(16);
+        String[] entries = { "D", "B", "K", "A", "C", "F", "E" };
+        int[] sizes = new int[3];
+        for (int round = 0; round < sizes.length; round++) {
+            for (String s : entries) {
+                set.add(s);
+            }
+            for (String s : entries) {
+                set.remove(s);
+            }
+            sizes[round] = set.poolSize();
+        }
+
+        assertTrue(sizes[0] > 0);
+        assertTrue(sizes[0] <= 16);
+        assertEquals(sizes[0], sizes[1]);
+        assertEquals(sizes[1], sizes[2]);
+        assertEquals(0, new Set3a<String>(0).poolSize());
+    }
+
+    /**
+     * Test case for newInstance on a set that reuses its scratch trees.
+     */
+    @Test
+    public void testPooledNewInstance() {
+        Set3a<String> set = new Set3a<String>(4);
+        Set<String> copy = set.newInstance();
+        Set<String> expected = this.constructorRef();
+        copy.add("B");
+        copy.add("A");
+        copy.remove("B");
+        expected.add("A");
+
+        assertEquals(expected, copy);
+    }
+
+    //bounded set tests
+
+    /**
+     * Test case for a bounded set evicting its least recently used element.
+     */
+    @Test
+    public void testBoundedLru() {
+        Set3a<String> set = new Set3a<String>(3, Set3a.Eviction.LRU);
+        Set<String> expected = this.constructorRef();
+        set.add("A");
+        set.add("B");
+        set.add("C");
+        assertTrue(set.contains("A"));
+        set.add("D");
+        expected.add("A");
+        expected.add("C");
+        expected.add("D");
+
+        assertEquals(expected, set);
+        assertEquals(1, set.evictionCount());
+    }
+
+    /**
+     * Test case for a bounded set evicting its least recently added element.
+     */
+    @Test
+    public void testBoundedFifo() {
+        Set3a<String> set = new Set3a<String>(3, Set3a.Eviction.FIFO);
+        Set<String> expected = this.constructorRef();
+        set.add("A");
+        set.add("B");
+        set.add("C");
+        assertTrue(set.contains("A"));
+        set.add("D");
+        expected.add("B");
+        expected.add("C");
+        expected.add("D");
+
+        assertEquals(expected, set);
+        assertEquals(1, set.evictionCount());
+    }
+
+    /**
+     * Test case for a bounded set evicting its smallest element.
+     */
+    @Test
+    public void testBoundedSmallest() {
+        Set3a<String> set = new Set3a<String>(2, Set3a.Eviction.SMALLEST);
+        Set<String> expected = this.constructorRef();
+        set.add("B");
+        set.add("A");
+        set.add("C");
+        expected.add("B");
+        expected.add("C");
+
+        assertEquals(expected, set);
+        assertEquals(1, set.evictionCount());
+    }
+
+    /**
+     * Test case for a bounded set whose elements expire.
+     */
+    @Test
+    public void testBoundedTtl() {
+        final long millis = 1_000_000L;
+        long[] now = { 0 };
+        Set3a<String> set = Set3a.expiring(5, 20L, () -> now[0]);
+        set.add("A");
+        set.add("B");
+        now[0] = 15 * millis;
+        set.add("C");
+        now[0] = 25 * millis;
+
+        assertEquals(1, set.size());
+        assertTrue(set.contains("C"));
+        assertFalse(set.contains("A"));
+        assertEquals(2, set.evictionCount());
+    }
+
+    /**
+     * Test case for remove of an element whose time to live runs out between
+     * contains and remove.
+     */
+    @Test
+    public void testBoundedTtlRemove() {
+        final long millis = 1_000_000L;
+        long[] now = { 0 };
+        Set3a<String> set = Set3a.expiring(5, 20L, () -> now[0]);
+        set.add("A");
+        set.add("B");
+        now[0] = 10 * millis;
+        assertTrue(set.contains("A"));
+        now[0] = 30 * millis;
+
+        assertEquals("A", set.remove("A"));
+        assertEquals(0, set.size());
+        assertEquals(1, set.evictionCount());
+    }
+
+    /**
+     * Test case for newInstance and transferFrom keeping the bound.
+     */
+    @Test
+    public void testBoundedNewInstance() {
+        Set3a<String> set = new Set3a<String>(2, Set3a.Eviction.FIFO);
+        Set<String> copy = set.newInstance();
+        Set<String> expected = this.constructorRef();
+        copy.add("A");
+        copy.add("B");
+        copy.add("C");
+        set.transferFrom(copy);
+        set.add("D");
+        expected.add("C");
+        expected.add("D");
+
+        assertEquals(expected, set);
+    }
+
+    /**
+     * Test case for the hit and miss counts of contains.
+     */
+    @Test
+    public void testHitMissCounts() {
+        Set3a<String> set = new Set3a<String>(2, Set3a.Eviction.LRU);
+        set.add("A");
+        set.contains("A");
+        set.contains("B");
+        set.contains("A");
+
+        assertEquals(2, set.hitCount());
+        assertEquals(1, set.missCount());
+    }
+
+    /**
+     * Test case for containsEach counting hits and misses and marking its
+     * elements as used.
+     */
+    @Test
+    public void testBoundedLruContainsEach() {
+        Set3a<String> set = new Set3a<String>(2, Set3a.Eviction.LRU);
+        Set<String> expected = this.constructorRef();
+        set.add("A");
+        set.add("B");
+        set.containsEach(new String[] { "A", "C" });
+        set.add("D");
+        expected.add("A");
+        expected.add("D");
+
+        assertEquals(1, set.hitCount());
+        assertEquals(1, set.missCount());
+        assertEquals(expected, set);
+    }
+
+    /**
+     * Test case for transferFrom moving the eviction and hit/miss counts.
+     */
+    @Test
+    public void testBoundedTransferCounts() {
+        Set3a<String> source = new Set3a<String>(1, Set3a.Eviction.FIFO);
+        source.add("A");
+        source.add("B");
+        source.contains("B");
+        Set3a<String> set = new Set3a<String>();
+        set.transferFrom(source);
+
+        assertEquals(1, set.evictionCount());
+        assertEquals(1, set.hitCount());
+        assertEquals(0, source.evictionCount());
+        assertEquals(0, source.hitCount());
+    }
+
+    //lazy deletion tests
+
+    /**
+     * Test case for remove, contains and size on a set that removes lazily.
+     */
+    @Test
+    public void testLazyRemove() {
+        Set3a<String> set = Set3a.lazy(0, 0.5);
+        Set<String> expected = this.constructorRef();
+        set.add("B");
+        set.add("A");
+        set.add("C");
+        expected.add("A");
+        expected.add("C");
+
+        assertEquals("B", set.remove("B"));
+        assertFalse(set.contains("B"));
+        assertEquals(2, set.size());
+        assertArrayEquals(new boolean[] { true, false, true },
+                set.containsEach(new String[] { "A", "B", "C" }));
+        assertEquals(expected, set);
+        assertEquals(1, set.tombstoneCount());
+    }
+
+    /**
+     * Test case for adding back an element that was removed lazily.
+     */
+    @Test
+    public void testLazyReAdd() {
+        Set3a<String> set = Set3a.lazy(0, 0.5);
+        Set<String> expected = this.constructorRef();
+        set.add("B");
+        set.add("A");
+        set.remove("A");
+        set.add("A");
+        expected.add("A");
+        expected.add("B");
+
+        assertTrue(set.contains("A"));
+        assertEquals(2, set.size());
+        assertEquals(0, set.tombstoneCount());
+        assertEquals(expected, set);
+    }
+
+    /**
+     * Test case for removeAny skipping elements that were removed lazily.
+     */
+    @Test
+    public void testLazyRemoveAny() {
+        Set3a<String> set = Set3a.lazy(0, 0.5);
+        set.add("C");
+        set.add("A");
+        set.add("B");
+        set.remove("A");
+
+        assertEquals("B", set.removeAny());
+        assertEquals(1, set.size());
+    }
+
+    /**
+     * Test case for compaction once enough elements are removed lazily.
+     */
+    @Test
+    public void testLazyCompaction() {
+        Set3a<String> set = Set3a.lazy(4, 0.25);
+        Set<String> expected = this.constructorRef();
+        String[] entries = { "A", "B", "C", "D", "E", "F", "G", "H" };
+        for (String s : entries) {
+            set.add(s);
+        }
+        set.remove("A");
+        set.remove("C");
+        assertEquals(2, set.tombstoneCount());
+        set.remove("E");
+        expected.add("B");
+        expected.add("D");
+        expected.add("F");
+        expected.add("G");
+        expected.add("H");
+
+        assertEquals(0, set.tombstoneCount());
+        assertEquals(5, set.size());
+        assertEquals(expected, set);
+    }
+
+    /**
+     * Test case for iterating a set that removes lazily without compacting
+     * it.
+     */
+    @Test
+    public void testLazyIterator() {
+        Set3a<String> set = Set3a.lazy(0, 0.5);
+        set.add("C");
+        set.add("A");
+        set.add("B");
+        set.add("D");
+        set.remove("A");
+        set.remove("C");
+        StringBuilder seen = new StringBuilder();
+        for (String s : set) {
+            seen.append(s);
+        }
+
+        assertEquals("BD", seen.toString());
+        assertEquals(2, set.tombstoneCount());
+        set.compact();
+        assertEquals(0, set.tombstoneCount());
+        assertEquals(2, set.size());
+    }
+
+    /**
+     * Test case for removing many elements lazily in increasing order.
+     */
+    @Test
+    public void testLazySortedRemove() {
+        final int n = 2000;
+        Set3a<Integer> set = Set3a.lazy(16, 0.75);
+        for (int i = 0; i < n; i++) {
+            //7 and n have no common factor, so this adds every key once
+            set.add((i * 7) % n);
+        }
+        for (int i = 0; i < n / 2; i++) {
+            assertEquals(Integer.valueOf(i), set.remove(i));
+        }
+
+        assertEquals(n / 2, set.tombstoneCount());
+        assertEquals(n / 2, set.size());
+        assertFalse(set.contains(0));
+        assertFalse(set.contains(n / 2 - 1));
+        assertTrue(set.contains(n / 2));
+        assertEquals(Integer.valueOf(n / 2), set.removeAny());
+        assertEquals(0, set.tombstoneCount());
+    }
+
+    /**
+     * Test case for a bounded set that removes lazily evicting its smallest
+     * element, skipping elements already removed.
+     */
+    @Test
+    public void testBoundedLazySmallest() {
+        Set3a<String> set = new Set3a.Builder().pool(4)
+                .bounded(3, Set3a.Eviction.SMALLEST).lazy(0.5).build();
+        Set<String> expected = this.constructorRef();
+        set.add("A");
+        set.add("B");
+        set.add("C");
+        set.remove("A");
+        set.add("D");
+        set.add("E");
+        expected.add("C");
+        expected.add("D");
+        expected.add("E");
+
+        assertEquals(1, set.evictionCount());
+        assertEquals(0, set.tombstoneCount());
+        assertTrue(set.poolSize() <= 4);
+        assertEquals(expected, set);
+    }
+
+    /**
+     * Test case for a bounded set that removes lazily evicting its least
+     * recently used element after an element is added back.
+     */
+    @Test
+    public void testBoundedLazyLru() {
+        Set3a<String> set = new Set3a.Builder()
+                .bounded(2, Set3a.Eviction.LRU).lazy(0.5).build();
+        Set<String> expected = this.constructorRef();
+        set.add("A");
+        set.add("B");
+        set.remove("A");
+        set.add("A");
+        assertTrue(set.contains("B"));
+        set.add("C");
+        expected.add("B");
+        expected.add("C");
+
+        assertEquals(1, set.evictionCount());
+        assertEquals(1, set.tombstoneCount());
+        assertEquals(expected, set);
+        Set<String> copy = set.newInstance();
+        copy.add("X");
+        copy.add("Y");
+        copy.add("Z");
+        assertEquals(2, copy.size());
+    }
+
 }